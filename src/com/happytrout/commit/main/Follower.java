@@ -0,0 +1,351 @@
+package com.happytrout.commit.main;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * Keeps a hot-standby copy of a commit log.  Listens on a local
+ * socket for a Shipper, appends the byte ranges it sends to the
+ * replica log, and acknowledges each range once it is on disk.
+ *
+ * Protocol, all numbers are 8 byte big-endian longs:
+ *   on connect  client sends SHIP or WAIT
+ *   SHIP        follower sends its current length, where the
+ *               shipper should resume, and a checksum of the last
+ *               bytes before it, so the shipper can tell the
+ *               replica really is a copy of its log
+ *   per range   shipper sends the range length, then the bytes,
+ *               follower replies with its new length once forced
+ *   WAIT        client sends an offset and a timeout in millis,
+ *               follower replies with its length once it reaches
+ *               the offset or the timeout passes
+ *
+ * A follower takes one shipper at a time, so each log should
+ * have one long-lived Shipper.  A second shipper is refused at
+ * once with a length of BUSY.  A shipper that restarts simply
+ * reconnects and resumes.  Any number of WAIT clients may be
+ * connected, so writers in other processes can wait for their
+ * commits, see Shipper.awaitFollower().
+ *
+ * @author      T. Collins
+ * @see         Shipper
+ * @since       1.1.0
+ */
+
+public class Follower {
+
+	// Global file handle for the replica log
+	File fh = null;
+	FileChannel channel = null;
+
+	// Listening socket and the shipper currently connected
+	ServerSocketChannel server = null;
+	SocketChannel client = null;
+	int port;
+
+	// Copy buffer from socket to file
+	private final ByteBuffer buf = ByteBuffer.allocateDirect(64 * 1024);
+
+	// Length sent on connect when another shipper is connected
+	static final long BUSY = -1;
+
+	// What a client wants, sent first on connect
+	static final long SHIP = 1;
+	static final long WAIT = 2;
+
+	// Largest range a shipper may send at once
+	static final long MAX_RANGE = 1024 * 1024;
+
+	// Bytes before the resume offset covered by the checksum
+	static final long CHECK_WINDOW = 64 * 1024;
+
+	volatile boolean closed = false;
+
+/**
+ * Constructor, which takes a file name and a port.  The replica
+ * log is created if it does not already exist.
+ *
+ * @param fname  File name for the replica log
+ * @param port   Local port to listen on, 0 picks a free port
+ */
+	public Follower(final String fname, final int port) throws RuntimeException {
+
+		if(fname == null || fname.length() < 1) {
+			throw new RuntimeException("File name cannot be null.");
+		}
+
+		try {
+		    fh = new File(fname);
+		    if(!fh.exists()) {
+		    		fh.createNewFile();
+		    }
+		    channel = FileChannel.open(fh.toPath(), StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+		} catch(IOException e) {
+			throw new RuntimeException("IO error opening file ["+fname+"] for writing "+e);
+		}
+		this.port = port;
+	}
+
+/**
+* Binds the local socket and starts serving shippers on a
+* background thread.
+*
+* @return      void
+*/
+	public void start() {
+		try {
+			server = ServerSocketChannel.open();
+			server.bind(new InetSocketAddress("127.0.0.1", port));
+			port = server.socket().getLocalPort();
+		} catch(IOException e) {
+			throw new RuntimeException("Could not listen on port ["+port+"] "+e);
+		}
+		Thread t = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				serve();
+			}
+		}, "follower-" + port);
+		t.setDaemon(true);
+		t.start();
+	}
+
+	public int getPort() {
+		return(this.port);
+	}
+
+/**
+* Current length of the replica log, which is also the last
+* offset acknowledged to a shipper.
+*
+* @return      replica length in bytes
+*/
+	public long getOffset() {
+		try {
+			return(channel.size());
+		} catch(IOException e) {
+			throw new RuntimeException("IO Error reading replica log ["+fh.getPath()+"] "+e);
+		}
+	}
+
+/**
+* Waits until the replica log reaches an offset.
+*
+* @param  offset  replica length to wait for
+* @param  millis  longest time to wait
+* @return      true if reached, false on timeout or once closed
+*/
+	public synchronized boolean awaitOffset(final long offset, final long millis) {
+		long deadline = System.currentTimeMillis() + millis;
+		try {
+			while(!closed && getOffset() < offset) {
+				long left = deadline - System.currentTimeMillis();
+				if(left <= 0) {
+					break;
+				}
+				wait(left);
+			}
+		} catch(InterruptedException e) {
+			throw new RuntimeException("Interrupted waiting for replica log ["+fh.getPath()+"] "+e);
+		}
+		return(!closed && getOffset() >= offset);
+	}
+
+/**
+* Accepts clients until closed, each on its own thread.  A broken
+* connection only ends that connection.
+*
+* @return      void
+*/
+	final void serve() {
+		while(!closed) {
+			final SocketChannel sock;
+			try {
+				sock = server.accept();
+				// Ranges and acks are small, never hold them back
+				sock.setOption(StandardSocketOptions.TCP_NODELAY, true);
+			} catch(IOException e) {
+				// We are closing, or the client went away at once
+				if(!server.isOpen()) {
+					return;
+				}
+				continue;
+			}
+			Thread t = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						handle(sock);
+					} catch(IOException e) {
+						// Client went away, or we are closing
+					} finally {
+						try {
+							sock.close();
+						} catch(IOException e) {
+							// Nothing more to do with this client
+						}
+					}
+				}
+			}, "follower-" + port + "-client");
+			t.setDaemon(true);
+			t.start();
+		}
+	}
+
+/**
+* Serves one client.  The first shipper is received from, any
+* other shipper is refused with BUSY.  A waiting client gets the
+* replica length once it reaches the offset asked for.
+*
+* @param  sock  connected client
+* @return      void
+*/
+	final void handle(final SocketChannel sock) throws IOException {
+		long mode = readLong(sock);
+		if(mode == WAIT) {
+			long offset = readLong(sock);
+			long millis = readLong(sock);
+			if(millis < 1) {
+				throw new IOException("Bad wait timeout ["+millis+"] from client");
+			}
+			awaitOffset(offset, millis);
+			if(!closed) {
+				writeLong(sock, channel.size());
+			}
+			return;
+		}
+		if(mode != SHIP) {
+			throw new IOException("Bad request ["+mode+"] from client");
+		}
+		boolean busy;
+		synchronized(this) {
+			busy = client != null;
+			if(!busy) {
+				client = sock;
+			}
+		}
+		if(busy) {
+			writeLong(sock, BUSY);
+			return;
+		}
+		try {
+			receive(sock);
+		} finally {
+			synchronized(this) {
+				client = null;
+			}
+		}
+	}
+
+/**
+* Receives byte ranges from one shipper and acknowledges them.
+* A range length outside 1 to MAX_RANGE ends the connection.
+*
+* @param  sock  connected shipper
+* @return      void
+*/
+	final void receive(final SocketChannel sock) throws IOException {
+		long size = channel.size();
+		writeLong(sock, size);
+		writeLong(sock, tailChecksum(fh, size));
+		while(true) {
+			long n = readLong(sock);
+			if(n <= 0 || n > MAX_RANGE) {
+				throw new IOException("Bad range length ["+n+"] from shipper");
+			}
+			while(n > 0) {
+				buf.clear();
+				if(n < buf.capacity()) {
+					buf.limit((int) n);
+				}
+				if(sock.read(buf) < 0) {
+					throw new EOFException("Shipper closed mid range");
+				}
+				buf.flip();
+				n -= buf.remaining();
+				while(buf.hasRemaining()) {
+					channel.write(buf);
+				}
+			}
+			channel.force(false);
+			writeLong(sock, channel.size());
+			synchronized(this) {
+				// Wake anyone waiting on this offset
+				notifyAll();
+			}
+		}
+	}
+
+/**
+* Stops listening and closes the replica log.
+*
+* @return      void
+*/
+	public void close() {
+		closed = true;
+		try {
+			if(server != null) {
+				server.close();
+			}
+			synchronized(this) {
+				if(client != null) {
+					client.close();
+				}
+				notifyAll();
+			}
+			channel.close();
+		} catch(IOException e) {
+			throw new RuntimeException("IO Error closing replica log ["+fh.getPath()+"] "+e);
+		}
+	}
+
+/**
+* Checksums the CHECK_WINDOW bytes of a log just before an
+* offset.  Shipper and follower compare these on connect.
+*
+* @param  fh   log file
+* @param  len  offset the window ends at
+* @return      CRC32 of the window
+*/
+	static long tailChecksum(final File fh, final long len) throws IOException {
+		CRC32 crc = new CRC32();
+		long pos = Math.max(0, len - CHECK_WINDOW);
+		ByteBuffer b = ByteBuffer.allocate((int) (len - pos));
+		try (FileChannel ch = FileChannel.open(fh.toPath(), StandardOpenOption.READ)) {
+			while(b.hasRemaining()) {
+				if(ch.read(b, pos + b.position()) < 0) {
+					throw new EOFException("Log ["+fh.getPath()+"] shorter than ["+len+"]");
+				}
+			}
+		}
+		b.flip();
+		crc.update(b);
+		return(crc.getValue());
+	}
+
+	static void writeLong(final SocketChannel sock, final long v) throws IOException {
+		ByteBuffer b = ByteBuffer.allocate(8);
+		b.putLong(v).flip();
+		while(b.hasRemaining()) {
+			sock.write(b);
+		}
+	}
+
+	static long readLong(final SocketChannel sock) throws IOException {
+		ByteBuffer b = ByteBuffer.allocate(8);
+		while(b.hasRemaining()) {
+			if(sock.read(b) < 0) {
+				throw new EOFException("Peer closed connection");
+			}
+		}
+		b.flip();
+		return(b.getLong());
+	}
+}
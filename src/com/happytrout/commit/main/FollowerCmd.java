@@ -0,0 +1,67 @@
+package com.happytrout.commit.main;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.GnuParser;
+import org.apache.commons.cli.OptionBuilder;
+import org.apache.commons.cli.Options; 
+import org.apache.commons.cli.ParseException;
+
+
+public class FollowerCmd {
+
+	public static void main(String[] args) {
+		// create Options object
+		Options opt = new Options();
+		
+		// add fname option
+		org.apache.commons.cli.Option fname   = OptionBuilder.withArgName( "fname" )
+                .hasArg()
+                .withDescription(  "filename for replica log file" )
+                .create( "fname" );
+		opt.addOption(fname);
+		// add port option
+		org.apache.commons.cli.Option port   = OptionBuilder.withArgName( "port" )
+                .hasArg()
+                .withDescription(  "local port to accept shippers on" )
+                .create( "port" );
+		opt.addOption(port);
+
+		CommandLineParser parser = new GnuParser();
+		CommandLine cmd;
+		try {
+			cmd = parser.parse( opt, args);
+		} catch (ParseException e) {
+			throw new RuntimeException("Parser Blew Fuse."+e);
+		}
+		
+		String fname_p = cmd.getOptionValue("fname");
+		if(fname_p == null) {
+			throw new RuntimeException("Filename required.");
+		}
+		
+		String port_s = cmd.getOptionValue("port");
+		if(port_s == null) {
+			throw new RuntimeException("Port required.");
+		}
+		int port_p;
+		try {
+			port_p = Integer.parseInt(port_s);
+		} catch(NumberFormatException e) {
+			throw new RuntimeException("Port must be a number.");
+		}
+		
+		// Serve shippers until killed
+		try {
+			Follower follower = new Follower(fname_p, port_p);
+			follower.start();
+			System.out.println("Following on port " + follower.getPort());
+			while(true) {
+				Thread.sleep(Long.MAX_VALUE);
+			}
+		} catch(RuntimeException | InterruptedException e) {
+			throw new RuntimeException("Initialization Error [["+e+"]]");
+		}
+	}
+
+}
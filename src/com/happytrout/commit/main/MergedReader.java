@@ -0,0 +1,350 @@
+package com.happytrout.commit.main;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+
+/**
+ * Reads several commit logs, one per host or segment, and merges
+ * them into a single stream ordered by the timestamp embedded in
+ * each Unique-ID.  Ties are broken by the Unique-ID itself, then
+ * by the order in which the logs were given.
+ *
+ * Logs are expected to be roughly in time order, as written by a
+ * Writer.  Several processes writing one log, or a clock step, can
+ * make timestamps go back a little, so each log is read through a
+ * small reorder window, and lines are merged in order within it.
+ * Lines further out of order are still merged, just late, and are
+ * counted, see getLateLines().  Malformed lines are skipped and
+ * counted, see getSkippedLines().
+ *
+ * The merge is streaming: it holds one buffered reader and one
+ * window of lines per log, so memory is bounded by the number of
+ * logs, not their size.
+ *
+ * If a CID is set, only entries for that CID are merged.
+ * Otherwise every entry is merged.
+ *
+ * @author      T. Collins
+ * @see         Reader
+ * @since       1.1.0
+ */
+
+public class MergedReader {
+
+	// One reader per input log, for validation and line counting
+	Reader[] readers = null;
+
+	// Read-ahead buffer size per input log
+	int bufferSize = 64 * 1024;
+
+	// Global CID, null merges all entries
+	String cid = null;
+
+	// Lines of look-ahead per input used to put it back in order
+	int window = 1024;
+
+	// Per input reorder windows, and which inputs are used up
+	PriorityQueue<Head>[] windows = null;
+	boolean[] eof = null;
+
+	// Counts from the last merge
+	long lateLines = 0;
+	long skippedLines = 0;
+	long linesOut = 0;
+
+	// Head of one input log, waiting in the heap
+	static final class Head {
+		final long stamp;
+		final String uid;
+		final int src;
+		final String raw;
+
+		Head(final long stamp, final String uid, final int src, final String raw) {
+			this.stamp = stamp;
+			this.uid = uid;
+			this.src = src;
+			this.raw = raw;
+		}
+	}
+
+	static final Comparator<Head> ORDER = new Comparator<Head>() {
+		@Override
+		public int compare(final Head a, final Head b) {
+			if(a.stamp != b.stamp) {
+				return(a.stamp < b.stamp ? -1 : 1);
+			}
+			int c = a.uid.compareTo(b.uid);
+			if(c != 0) {
+				return(c);
+			}
+			return(Integer.compare(a.src, b.src));
+		}
+	};
+
+/**
+ * Constructor, which takes the file names of the logs to merge.
+ *
+ * @param fnames  File names for the log files
+ */
+	public MergedReader(final String[] fnames) throws RuntimeException {
+
+		if(fnames == null || fnames.length < 1) {
+			throw new RuntimeException("At least one file name is required.");
+		}
+
+		readers = new Reader[fnames.length];
+		for(int i = 0; i < fnames.length; i++) {
+			readers[i] = new Reader(fnames[i]);
+		}
+	}
+
+/**
+ * Alternative constructor, which takes the file names and a cid.
+ * This is the same as the base constructor, but saves setting the
+ * cid later.
+ *
+ * @param fnames  File names for the log files
+ * @param cid     String uniquely identifying the writer to merge
+ */
+	public MergedReader(final String[] fnames, final String cid) throws RuntimeException {
+
+		this(fnames);
+
+		this.setCid(cid);
+
+	}
+
+/**
+* Setters and Getters for CID
+*
+* @param  cid  a string of arbitrary length
+* @return      void
+*/
+	public void setCid(final String cid) {
+		if(cid == null || cid.length() < 1) {
+			throw new RuntimeException("CID cannot be null.");
+		}
+		this.cid = cid;
+	}
+
+	public String getCid() {
+		return(this.cid);
+	}
+
+/**
+* Setters and Getters for the read-ahead buffer size, in
+* characters, used for each input log.
+*
+* @param  size  buffer size per input
+* @return      void
+*/
+	public void setBufferSize(final int size) {
+		if(size < 1) {
+			throw new RuntimeException("Buffer size must be positive.");
+		}
+		this.bufferSize = size;
+	}
+
+	public int getBufferSize() {
+		return(this.bufferSize);
+	}
+
+/**
+* Setters and Getters for the reorder window, in lines held back
+* per input log.
+*
+* @param  lines  size of each reorder window
+* @return      void
+*/
+	public void setWindow(final int lines) {
+		if(lines < 1) {
+			throw new RuntimeException("Reorder window must be positive.");
+		}
+		this.window = lines;
+	}
+
+	public int getWindow() {
+		return(this.window);
+	}
+
+/**
+* Lines in the last merge that were out of order by more than
+* the reorder window, so were merged late.
+*
+* @return      count of late lines
+*/
+	public long getLateLines() {
+		return(this.lateLines);
+	}
+
+/**
+* Malformed lines skipped in the last merge.
+*
+* @return      count of skipped lines
+*/
+	public long getSkippedLines() {
+		return(this.skippedLines);
+	}
+
+/**
+* Sends the merged contents of the commit logs to stdout.
+*
+* The output is streamed, so if reading a log fails part way,
+* what came before is already out.  It then throws a
+* RuntimeException saying how many lines were sent.
+*
+* @return      void
+*/
+	public final void fetch() {
+		merge(System.out, System.lineSeparator(), "stdout");
+		System.out.flush();
+	}
+
+/**
+* Writes the merged contents of the commit logs to a new
+* commit log, which can then be read with a Reader.  If the
+* merge fails, the new log is removed.
+*
+* @param  outName  file name for the new log, must not exist
+* @return      void
+*/
+	public final void compact(final String outName) {
+		if(outName == null || outName.length() < 1) {
+			throw new RuntimeException("File name cannot be null.");
+		}
+		File out = new File(outName);
+		if(out.exists()) {
+			throw new RuntimeException("Could not create file ["+outName+"] for writing, already exists");
+		}
+		try (BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(
+				new FileOutputStream(out), StandardCharsets.UTF_8), bufferSize)) {
+			merge(bw, "\r\n", outName);
+		} catch(IOException e) {
+			out.delete();
+			throw new RuntimeException("IO Error writing to log file ["+outName+"] "+e);
+		} catch(RuntimeException e) {
+			// Never leave a partial log behind
+			out.delete();
+			throw e;
+		}
+	}
+
+/**
+* Runs the k-way merge, appending each selected line to out.
+*
+* @param  out      destination for merged lines
+* @param  eol      line terminator to append after each line
+* @param  outName  name of the destination, for errors
+* @return      void
+*/
+	@SuppressWarnings("unchecked")
+	final void merge(final Appendable out, final String eol, final String outName) {
+		BufferedReader[] brs = new BufferedReader[readers.length];
+		PriorityQueue<Head> heap = new PriorityQueue<Head>(readers.length, ORDER);
+		int src = 0;
+		try {
+			synchronized(this) {
+				windows = new PriorityQueue[readers.length];
+				eof = new boolean[readers.length];
+				lateLines = 0;
+				skippedLines = 0;
+				linesOut = 0;
+				for(src = 0; src < readers.length; src++) {
+					readers[src].line_cntr = 0;
+					brs[src] = new BufferedReader(new InputStreamReader(
+							new FileInputStream(readers[src].fh), StandardCharsets.UTF_8), bufferSize);
+					windows[src] = new PriorityQueue<Head>(Math.min(window, 1024) + 1, ORDER);
+					fill(src, brs[src]);
+					if(!windows[src].isEmpty()) {
+						heap.add(windows[src].poll());
+					}
+				}
+
+				long lastOut = Long.MIN_VALUE;
+				Head h;
+				while((h = heap.poll()) != null) {
+					if(h.stamp < lastOut) {
+						lateLines++;
+					}
+					lastOut = Math.max(lastOut, h.stamp);
+					try {
+						out.append(h.raw).append(eol);
+					} catch(IOException e) {
+						throw new RuntimeException("IO Error writing merged output ["+outName+"] after ["+linesOut+"] lines "+e);
+					}
+					linesOut++;
+					src = h.src;
+					fill(src, brs[src]);
+					if(!windows[src].isEmpty()) {
+						heap.add(windows[src].poll());
+					}
+				}
+			}
+		} catch(IOException e) {
+			throw new RuntimeException("IO Error reading log file ["+readers[src].fh.getPath()+"] after ["+linesOut+"] lines sent to ["+outName+"] "+e);
+		} finally {
+			for(BufferedReader br : brs) {
+				if(br != null) {
+					try {
+						br.close();
+					} catch(IOException e) {
+						// Nothing more to do with this input
+					}
+				}
+			}
+		}
+	}
+
+/**
+* Tops up the reorder window of one input log.
+*
+* @param  src  index of the input log
+* @param  br   open reader for that log
+* @return      void
+*/
+	final void fill(final int src, final BufferedReader br) throws IOException {
+		while(!eof[src] && windows[src].size() < window) {
+			Head h = next(src, br);
+			if(h == null) {
+				eof[src] = true;
+			} else {
+				windows[src].add(h);
+			}
+		}
+	}
+
+/**
+* Reads ahead on one input log to the next well formed line that
+* passes the CID filter.
+*
+* @param  src  index of the input log
+* @param  br   open reader for that log
+* @return      head of the input, or null at end of file
+*/
+	final Head next(final int src, final BufferedReader br) throws IOException {
+		Reader r = readers[src];
+		String s;
+		while((s = br.readLine()) != null) {
+			String[] fields;
+			long stamp;
+			try {
+				fields = r.splitLine(s);
+				int dash = fields[1].indexOf("-");
+				stamp = Long.parseLong(dash < 0 ? fields[1] : fields[1].substring(0, dash));
+			} catch(RuntimeException e) {
+				// Malformed, or a bad timestamp
+				skippedLines++;
+				continue;
+			} finally {
+				r.line_cntr++;
+			}
+			if(cid != null && !cid.equals(fields[0])) {
+				continue;
+			}
+			return(new Head(stamp, fields[1], src, s));
+		}
+		return(null);
+	}
+}
@@ -136,11 +136,29 @@ public class Reader {
 * @return      void
 */
 	public String parseLine(final String raw) {
-		final String delimiter = ":";
-		
 		if(cid == null || cid.length() < 1) {
 			throw new RuntimeException("CID cannot be null.");
 		}
+
+		String[] fields = splitLine(raw);
+		if(cid.equals(fields[0])) {
+			return(raw);
+		} else {
+			return(null);
+		}
+	}
+	
+/**
+* Checks a single line from the log file and splits it into
+* its CID, Unique-ID and Data fields.  Delimiters inside the
+* data are left alone.
+* 
+* @param  raw  a string of arbitrary length
+* @return      array of CID, Unique-ID and Data
+*/
+	public String[] splitLine(final String raw) {
+		final String delimiter = ":";
+		
 		if(raw.length() < 5) {
 			throw new RuntimeException("Malformed line in log, too short line ["+line_cntr+"]");
 		}
@@ -153,12 +171,7 @@ public class Reader {
 			throw new RuntimeException("Malformed line in log, has only one delimiter line ["+line_cntr+"]");
 		}
 
-		String[] fields = raw.split(delimiter);
-		if(cid.equals(fields[0])) {
-			return(raw);
-		} else {
-			return(null);
-		}
+		return(raw.split(delimiter, 3));
 	}
 	
 /**
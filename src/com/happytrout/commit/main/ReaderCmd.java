@@ -26,6 +26,18 @@ public class ReaderCmd {
                 .withDescription(  "commit id for message" )
                 .create( "cid" );
 		opt.addOption(cid);
+		// add merge option
+		org.apache.commons.cli.Option merge   = OptionBuilder.withArgName( "fnames" )
+                .hasArg()
+                .withDescription(  "comma separated log files to merge in time order" )
+                .create( "merge" );
+		opt.addOption(merge);
+		// add out option
+		org.apache.commons.cli.Option out   = OptionBuilder.withArgName( "out" )
+                .hasArg()
+                .withDescription(  "write merged entries to this new log file" )
+                .create( "out" );
+		opt.addOption(out);
 
 		CommandLineParser parser = new GnuParser();
 		CommandLine cmd;
@@ -35,6 +47,37 @@ public class ReaderCmd {
 			throw new RuntimeException("Parser Blew Fuse."+e);
 		}
 		
+		String merge_p = cmd.getOptionValue("merge");
+		if(merge_p == null && cmd.getOptionValue("out") != null) {
+			throw new RuntimeException("Out requires merge.");
+		}
+		if(merge_p != null && cmd.getOptionValue("fname") != null) {
+			throw new RuntimeException("Use merge or fname, not both.");
+		}
+		if(merge_p != null) {
+			try {
+				MergedReader reader = new MergedReader(merge_p.split(","));
+				if(cmd.getOptionValue("cid") != null) {
+					reader.setCid(cmd.getOptionValue("cid"));
+				}
+				String out_p = cmd.getOptionValue("out");
+				if(out_p != null) {
+					reader.compact(out_p);
+				} else {
+					reader.fetch();
+				}
+				if(reader.getLateLines() > 0) {
+					System.err.println("Warning: ["+reader.getLateLines()+"] lines were further out of time order than the reorder window, merged late");
+				}
+				if(reader.getSkippedLines() > 0) {
+					System.err.println("Warning: ["+reader.getSkippedLines()+"] malformed lines skipped");
+				}
+			} catch(RuntimeException e) {
+				throw new RuntimeException("Initialization Error [["+e+"]]");
+			}
+			return;
+		}
+		
 		String fname_p = cmd.getOptionValue("fname");
 		if(fname_p == null) {
 			throw new RuntimeException("Filename required.");
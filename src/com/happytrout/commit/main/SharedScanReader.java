@@ -0,0 +1,380 @@
+package com.happytrout.commit.main;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serves many CID readers from a single pass over one commit log.
+ *
+ * Each reader subscribes to a CID and gets a bounded queue.  The
+ * log is read and parsed once, and every line is handed to the
+ * subscribers for its CID through a CID to subscriber map.  When a
+ * queue is full the scan waits for that subscriber, so a slow
+ * reader holds the scan back instead of growing memory.
+ *
+ * scan() reads the log once to the end, and every subscriber must
+ * be added before it starts, so all of them see the whole log.
+ * follow() keeps reading as the log grows, like tail -f, until
+ * close() is called.  Subscribers may join a running follow(), and
+ * get lines from its current read position on.  Only whole lines
+ * are dispatched, a partial line at the end of the log is left
+ * for its writer to finish.  Each reader is good for one scan or
+ * follow.  close() does not wait on subscribers that have stopped
+ * reading, they are marked done instead.
+ *
+ * @author      T. Collins
+ * @see         Reader
+ * @since       1.1.0
+ */
+
+public class SharedScanReader {
+
+	// Reader for the log, for validation and line counting
+	Reader reader = null;
+
+	// Subscribers by CID.  Changes are made holding the map's lock,
+	// and lists are replaced, never changed, so the scan looks up
+	// and walks a list without taking any lock.
+	final ConcurrentHashMap<String, List<Subscription>> subs = new ConcurrentHashMap<String, List<Subscription>>();
+
+	// Read-ahead buffer size for the log
+	int bufferSize = 64 * 1024;
+
+	// How long follow() sleeps at the end of the log
+	long pollMillis = 50;
+
+	volatile boolean closed = false;
+
+	// Set once scan() or follow() starts and ends, guarded by subs
+	boolean started = false;
+	boolean following = false;
+	boolean finished = false;
+
+	// Marks end of stream in a subscriber queue, compared by identity
+	static final String END = new String("<end>");
+
+/**
+ * One CID subscription, with its own bounded queue of lines.
+ */
+	public static final class Subscription {
+		final String cid;
+		final ArrayBlockingQueue<String> queue;
+		final SharedScanReader owner;
+		volatile boolean done = false;
+
+		Subscription(final SharedScanReader owner, final String cid, final int capacity) {
+			this.owner = owner;
+			this.cid = cid;
+			this.queue = new ArrayBlockingQueue<String>(capacity);
+		}
+
+		public String getCid() {
+			return(this.cid);
+		}
+
+/**
+* Waits for the next line for this CID.
+*
+* @return      the raw line, or null once the scan has ended
+*/
+		public String take() {
+			if(done) {
+				return(null);
+			}
+			try {
+				return(unwrap(queue.take()));
+			} catch(InterruptedException e) {
+				throw new RuntimeException("Interrupted waiting for CID ["+cid+"] "+e);
+			}
+		}
+
+/**
+* Waits up to a timeout for the next line for this CID.
+*
+* @param  millis  longest time to wait
+* @return      the raw line, or null on timeout or once the scan has ended
+*/
+		public String poll(final long millis) {
+			if(done) {
+				return(null);
+			}
+			try {
+				return(unwrap(queue.poll(millis, TimeUnit.MILLISECONDS)));
+			} catch(InterruptedException e) {
+				throw new RuntimeException("Interrupted waiting for CID ["+cid+"] "+e);
+			}
+		}
+
+		public boolean isDone() {
+			return(this.done);
+		}
+
+/**
+* Stops this subscription, so the scan no longer waits on it.
+*
+* @return      void
+*/
+		public void cancel() {
+			done = true;
+			owner.unsubscribe(this);
+			// Frees a scan that is blocked on our full queue
+			queue.clear();
+		}
+
+		private String unwrap(final String s) {
+			if(s == END) {
+				done = true;
+				return(null);
+			}
+			return(s);
+		}
+	}
+
+/**
+ * Constructor, which takes a file name.  The log must exist.
+ *
+ * @param fname  File name for the log file
+ */
+	public SharedScanReader(final String fname) throws RuntimeException {
+		reader = new Reader(fname);
+	}
+
+/**
+* Setters and Getters for the read-ahead buffer size, in
+* bytes.
+*
+* @param  size  buffer size
+* @return      void
+*/
+	public void setBufferSize(final int size) {
+		if(size < 1) {
+			throw new RuntimeException("Buffer size must be positive.");
+		}
+		this.bufferSize = size;
+	}
+
+	public int getBufferSize() {
+		return(this.bufferSize);
+	}
+
+/**
+* Setters and Getters for the follow() poll interval
+*
+* @param  millis  time to sleep at the end of the log
+* @return      void
+*/
+	public void setPollMillis(final long millis) {
+		if(millis < 1) {
+			throw new RuntimeException("Poll interval must be positive.");
+		}
+		this.pollMillis = millis;
+	}
+
+	public long getPollMillis() {
+		return(this.pollMillis);
+	}
+
+/**
+* Adds a subscriber for a CID.  Must be called before scan(), or
+* before or during follow(), otherwise it throws a
+* RuntimeException.  A subscriber added during follow() gets lines
+* from the current read position on.
+*
+* @param  cid       CID to receive lines for
+* @param  capacity  most lines queued before the scan waits
+* @return      the new subscription
+*/
+	public Subscription subscribe(final String cid, final int capacity) {
+		if(cid == null || cid.length() < 1) {
+			throw new RuntimeException("CID cannot be null.");
+		}
+		if(capacity < 1) {
+			throw new RuntimeException("Queue capacity must be positive.");
+		}
+		Subscription sub = new Subscription(this, cid, capacity);
+		synchronized(subs) {
+			if(finished) {
+				throw new RuntimeException("Log ["+reader.fh.getPath()+"] has already been read by this reader.");
+			}
+			if(started && !following) {
+				throw new RuntimeException("Subscribers must be added before scan().");
+			}
+			List<Subscription> list = subs.get(cid);
+			List<Subscription> copy = list == null
+					? new ArrayList<Subscription>(1) : new ArrayList<Subscription>(list);
+			copy.add(sub);
+			subs.put(cid, copy);
+		}
+		return(sub);
+	}
+
+	final void unsubscribe(final Subscription sub) {
+		synchronized(subs) {
+			List<Subscription> list = subs.get(sub.cid);
+			if(list == null) {
+				return;
+			}
+			List<Subscription> copy = new ArrayList<Subscription>(list);
+			copy.remove(sub);
+			if(copy.isEmpty()) {
+				subs.remove(sub.cid);
+			} else {
+				subs.put(sub.cid, copy);
+			}
+		}
+	}
+
+/**
+* Reads the log once, to its current end, dispatching each line
+* to the subscribers for its CID.  Subscribers see end of stream
+* when it returns.
+*
+* If it fails, it throws a RuntimeException, with the error
+* set to the explanation of the failure.
+*
+* @return      void
+*/
+	public final void scan() {
+		run(false);
+	}
+
+/**
+* Reads the log and keeps following it as it grows, until
+* close() is called.  Subscribers see end of stream when it
+* returns.
+*
+* @return      void
+*/
+	public final void follow() {
+		run(true);
+	}
+
+/**
+* Stops a running follow(), or a scan().  Subscribers that are
+* not draining their queues are marked done, not waited on.
+*
+* @return      void
+*/
+	public void close() {
+		closed = true;
+	}
+
+	final void run(final boolean tail) {
+		synchronized(subs) {
+			if(started) {
+				throw new RuntimeException("Log ["+reader.fh.getPath()+"] has already been scanned by this reader.");
+			}
+			started = true;
+			following = tail;
+		}
+		try (FileInputStream in = new FileInputStream(reader.fh)) {
+			synchronized(this) {
+				reader.line_cntr = 0;
+				// Lines are split as bytes, so a character cut off at
+				// the end of a growing log is never decoded early
+				byte[] buf = new byte[bufferSize];
+				ByteArrayOutputStream line = new ByteArrayOutputStream();
+				while(!closed) {
+					int n = in.read(buf);
+					if(n < 0) {
+						// A partial line waits for the rest of it, or
+						// is dropped at the end of a scan
+						if(!tail) {
+							break;
+						}
+						Thread.sleep(pollMillis);
+						continue;
+					}
+					int start = 0;
+					for(int i = 0; i < n; i++) {
+						if(buf[i] != '\n') {
+							continue;
+						}
+						line.write(buf, start, i - start);
+						dispatch(decode(line));
+						line.reset();
+						start = i + 1;
+					}
+					line.write(buf, start, n - start);
+				}
+			}
+		} catch(IOException e) {
+			throw new RuntimeException("IO Error reading log file ["+reader.fh.getPath()+"] "+e);
+		} catch(InterruptedException e) {
+			throw new RuntimeException("Interrupted reading log file ["+reader.fh.getPath()+"] "+e);
+		} finally {
+			finish();
+		}
+	}
+
+/**
+* Decodes one line, dropping the CR of its CRLF line end.
+*
+* @param  line  bytes of the line, without its LF
+* @return      the line as a string
+*/
+	static String decode(final ByteArrayOutputStream line) {
+		String s = new String(line.toByteArray(), StandardCharsets.UTF_8);
+		if(s.endsWith("\r")) {
+			return(s.substring(0, s.length() - 1));
+		}
+		return(s);
+	}
+
+/**
+* Parses one line and queues it for every subscriber of its CID,
+* waiting on any subscriber whose queue is full.
+*
+* @param  raw  a line from the log, without its line end
+* @return      void
+*/
+	final void dispatch(final String raw) throws InterruptedException {
+		String[] fields = reader.splitLine(raw);
+		reader.line_cntr++;
+		List<Subscription> list = subs.get(fields[0]);
+		if(list == null) {
+			return;
+		}
+		for(Subscription sub : list) {
+			while(!sub.done && !closed && !sub.queue.offer(raw, pollMillis, TimeUnit.MILLISECONDS)) {
+				// Backpressure, wait for the subscriber to drain
+			}
+		}
+	}
+
+/**
+* Signals end of stream to every current subscriber.  Once
+* closed, a subscriber with a full queue is marked done instead.
+*
+* @return      void
+*/
+	final void finish() {
+		List<Subscription> all = new ArrayList<Subscription>();
+		synchronized(subs) {
+			// No one can subscribe once we have the list
+			finished = true;
+			for(List<Subscription> list : subs.values()) {
+				all.addAll(list);
+			}
+		}
+		for(Subscription sub : all) {
+			boolean queued = false;
+			try {
+				while(!sub.done && !(queued = sub.queue.offer(END, pollMillis, TimeUnit.MILLISECONDS)) && !closed) {
+					// Backpressure, wait for the subscriber to drain
+				}
+			} catch(InterruptedException e) {
+				// Give up waiting, mark the rest done below
+				closed = true;
+			}
+			if(!queued) {
+				sub.done = true;
+			}
+		}
+	}
+}
@@ -0,0 +1,326 @@
+package com.happytrout.commit.main;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Streams newly appended byte ranges of a commit log to a
+ * Follower over a local socket.  Ranges go straight from the
+ * file to the socket with FileChannel.transferTo, so the log is
+ * never copied through the heap or re-read from the start.
+ *
+ * The shipper resumes from whatever length the follower reports
+ * on connect, once it has checked the replica matches its own log
+ * up to that point, then polls the log for growth.  A Writer in
+ * the same process can nudge it and wait for the follower to
+ * acknowledge an offset.  A Writer in another process asks the
+ * follower directly with awaitFollower(), and waits up to one poll
+ * interval longer.  See Writer.setReplica().
+ *
+ * A follower takes one shipper at a time, so run one long-lived
+ * Shipper per log, e.g. ShipperCmd, rather than one per writer.
+ * It ships every append, whichever process made it.
+ *
+ * @author      T. Collins
+ * @see         Follower
+ * @see         Writer
+ * @since       1.1.0
+ */
+
+public class Shipper {
+
+	// Global file handle for the leader log
+	File fh = null;
+	FileChannel channel = null;
+
+	// Connection to the follower
+	SocketChannel sock = null;
+	String host;
+	int port;
+
+	// Offsets sent to, and acknowledged by, the follower
+	long shipped = 0;
+	long acked = 0;
+
+	// How long to sleep when the log has not grown
+	long pollMillis = 50;
+
+	// How long start() waits to connect and hear back
+	int timeoutMillis = 5000;
+
+	boolean nudged = false;
+	volatile boolean closed = false;
+	Exception failure = null;
+
+/**
+ * Constructor, which takes the leader log file name and where
+ * the follower is listening.
+ *
+ * @param fname  File name for the leader log
+ * @param host   Follower host, normally 127.0.0.1
+ * @param port   Follower port
+ */
+	public Shipper(final String fname, final String host, final int port) throws RuntimeException {
+
+		if(fname == null || fname.length() < 1) {
+			throw new RuntimeException("File name cannot be null.");
+		}
+
+	    fh = new File(fname);
+	    if(!fh.exists()) {
+	    		throw new RuntimeException("Could not open file ["+fname+"] for shipping, does not exist");
+	    }
+	    this.host = host;
+	    this.port = port;
+	}
+
+/**
+* Setters and Getters for the poll interval
+*
+* @param  millis  time to sleep when there is nothing to ship
+* @return      void
+*/
+	public void setPollMillis(final long millis) {
+		if(millis < 1) {
+			throw new RuntimeException("Poll interval must be positive.");
+		}
+		this.pollMillis = millis;
+	}
+
+	public long getPollMillis() {
+		return(this.pollMillis);
+	}
+
+/**
+* Setters and Getters for the start() timeout
+*
+* @param  millis  longest time to connect and hear back from the follower
+* @return      void
+*/
+	public void setTimeoutMillis(final int millis) {
+		if(millis < 1) {
+			throw new RuntimeException("Timeout must be positive.");
+		}
+		this.timeoutMillis = millis;
+	}
+
+	public int getTimeoutMillis() {
+		return(this.timeoutMillis);
+	}
+
+/**
+* Connects to the follower and starts shipping on a background
+* thread.
+*
+* @return      void
+*/
+	public void start() {
+		long sum;
+		try {
+			channel = FileChannel.open(fh.toPath(), StandardOpenOption.READ);
+			sock = SocketChannel.open();
+			// Ranges and acks are small, never hold them back
+			sock.setOption(StandardSocketOptions.TCP_NODELAY, true);
+			sock.socket().connect(new InetSocketAddress(host, port), timeoutMillis);
+			Follower.writeLong(sock, Follower.SHIP);
+			// Read the greeting through the socket so the timeout applies
+			sock.socket().setSoTimeout(timeoutMillis);
+			DataInputStream in = new DataInputStream(sock.socket().getInputStream());
+			shipped = in.readLong();
+			if(shipped == Follower.BUSY) {
+				close();
+				throw new RuntimeException("Follower ["+host+":"+port+"] already has a shipper, run one shipper per log");
+			}
+			sum = in.readLong();
+			sock.socket().setSoTimeout(0);
+		} catch(IOException e) {
+			close();
+			throw new RuntimeException("Could not connect to follower ["+host+":"+port+"] "+e);
+		}
+		try {
+			if(shipped > channel.size()) {
+				close();
+				throw new RuntimeException("Follower is ahead of log file ["+fh.getPath()+"], at offset ["+shipped+"]");
+			}
+			if(sum != Follower.tailChecksum(fh, shipped)) {
+				close();
+				throw new RuntimeException("Follower log differs from log file ["+fh.getPath()+"] before offset ["+shipped+"]");
+			}
+		} catch(IOException e) {
+			close();
+			throw new RuntimeException("IO Error reading log file ["+fh.getPath()+"] "+e);
+		}
+		acked = shipped;
+		Thread t = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				ship();
+			}
+		}, "shipper-" + port);
+		t.setDaemon(true);
+		t.start();
+	}
+
+/**
+* Last offset the follower has acknowledged as on disk.
+*
+* @return      acknowledged offset in bytes
+*/
+	public synchronized long getAcked() {
+		return(this.acked);
+	}
+
+/**
+* Wakes the shipper and waits until the follower acknowledges
+* the given offset.
+*
+* If shipping has failed, or the shipper is closed, it throws a
+* RuntimeException, with the error set to the explanation of the
+* failure.
+*
+* @param  offset  log offset that must be acknowledged
+* @param  millis  longest time to wait
+* @return      true if acknowledged, false on timeout
+*/
+	public synchronized boolean awaitAck(final long offset, final long millis) {
+		long deadline = System.currentTimeMillis() + millis;
+		nudged = true;
+		notifyAll();
+		try {
+			while(acked < offset && failure == null && !closed) {
+				long left = deadline - System.currentTimeMillis();
+				if(left <= 0) {
+					break;
+				}
+				wait(left);
+			}
+		} catch(InterruptedException e) {
+			throw new RuntimeException("Interrupted waiting for follower ["+host+":"+port+"] "+e);
+		}
+		if(failure != null) {
+			throw new RuntimeException("Shipping to follower ["+host+":"+port+"] failed "+failure);
+		}
+		if(acked < offset && closed) {
+			throw new RuntimeException("Shipper for follower ["+host+":"+port+"] closed before offset ["+offset+"] was acknowledged");
+		}
+		return(acked >= offset);
+	}
+
+/**
+* Waits until shipping fails or the shipper is closed.
+*
+* If shipping has failed, it throws a RuntimeException, with the
+* error set to the explanation of the failure.
+*
+* @return      void
+*/
+	public synchronized void join() {
+		try {
+			while(failure == null && !closed) {
+				wait();
+			}
+		} catch(InterruptedException e) {
+			throw new RuntimeException("Interrupted shipping to follower ["+host+":"+port+"] "+e);
+		}
+		if(failure != null) {
+			throw new RuntimeException("Shipping to follower ["+host+":"+port+"] failed "+failure);
+		}
+	}
+
+/**
+* Waits until a follower has acknowledged an offset, asking the
+* follower itself, so it works from any process, not just the one
+* running the Shipper.
+*
+* If the follower cannot be reached, it throws a RuntimeException,
+* with the error set to the explanation of the failure.
+*
+* @param  host    Follower host, normally 127.0.0.1
+* @param  port    Follower port
+* @param  offset  log offset that must be acknowledged
+* @param  millis  longest time to wait
+* @return      true if acknowledged, false on timeout
+*/
+	public static boolean awaitFollower(final String host, final int port, final long offset, final long millis) {
+		if(millis < 1) {
+			throw new RuntimeException("Timeout must be positive.");
+		}
+		try (SocketChannel s = SocketChannel.open()) {
+			s.setOption(StandardSocketOptions.TCP_NODELAY, true);
+			s.socket().connect(new InetSocketAddress(host, port), (int) Math.min(millis, Integer.MAX_VALUE));
+			Follower.writeLong(s, Follower.WAIT);
+			Follower.writeLong(s, offset);
+			Follower.writeLong(s, millis);
+			return(Follower.readLong(s) >= offset);
+		} catch(IOException e) {
+			throw new RuntimeException("Could not wait on follower ["+host+":"+port+"] "+e);
+		}
+	}
+
+/**
+* Ships new byte ranges until closed or the connection fails.
+*
+* @return      void
+*/
+	final void ship() {
+		try {
+			while(!closed) {
+				long size = channel.size();
+				if(size > shipped) {
+					long n = Math.min(size - shipped, Follower.MAX_RANGE);
+					Follower.writeLong(sock, n);
+					long sent = 0;
+					while(sent < n) {
+						sent += channel.transferTo(shipped + sent, n - sent, sock);
+					}
+					shipped += n;
+					long ack = Follower.readLong(sock);
+					synchronized(this) {
+						acked = ack;
+						notifyAll();
+					}
+				} else {
+					synchronized(this) {
+						if(!nudged && !closed) {
+							wait(pollMillis);
+						}
+						nudged = false;
+					}
+				}
+			}
+		} catch(IOException | InterruptedException e) {
+			synchronized(this) {
+				if(!closed) {
+					failure = e;
+				}
+				notifyAll();
+			}
+		}
+	}
+
+/**
+* Stops shipping and closes the connection.
+*
+* @return      void
+*/
+	public void close() {
+		synchronized(this) {
+			closed = true;
+			notifyAll();
+		}
+		try {
+			if(sock != null) {
+				sock.close();
+			}
+			if(channel != null) {
+				channel.close();
+			}
+		} catch(IOException e) {
+			throw new RuntimeException("IO Error closing log file ["+fh.getPath()+"] "+e);
+		}
+	}
+}
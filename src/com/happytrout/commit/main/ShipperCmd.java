@@ -0,0 +1,86 @@
+package com.happytrout.commit.main;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.GnuParser;
+import org.apache.commons.cli.OptionBuilder;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+
+
+public class ShipperCmd {
+
+	public static void main(String[] args) {
+		// create Options object
+		Options opt = new Options();
+
+		// add fname option
+		org.apache.commons.cli.Option fname   = OptionBuilder.withArgName( "fname" )
+                .hasArg()
+                .withDescription(  "filename for log file to ship" )
+                .create( "fname" );
+		opt.addOption(fname);
+		// add port option
+		org.apache.commons.cli.Option port   = OptionBuilder.withArgName( "port" )
+                .hasArg()
+                .withDescription(  "local port the follower listens on" )
+                .create( "port" );
+		opt.addOption(port);
+		// add poll option
+		org.apache.commons.cli.Option poll   = OptionBuilder.withArgName( "millis" )
+                .hasArg()
+                .withDescription(  "how often to check the log for new commits" )
+                .create( "poll" );
+		opt.addOption(poll);
+
+		CommandLineParser parser = new GnuParser();
+		CommandLine cmd;
+		try {
+			cmd = parser.parse( opt, args);
+		} catch (ParseException e) {
+			throw new RuntimeException("Parser Blew Fuse."+e);
+		}
+
+		String fname_p = cmd.getOptionValue("fname");
+		if(fname_p == null) {
+			throw new RuntimeException("Filename required.");
+		}
+
+		String port_s = cmd.getOptionValue("port");
+		if(port_s == null) {
+			throw new RuntimeException("Port required.");
+		}
+		int port_p;
+		try {
+			port_p = Integer.parseInt(port_s);
+		} catch(NumberFormatException e) {
+			throw new RuntimeException("Port must be a number.");
+		}
+
+		long poll_p = 0;
+		if(cmd.getOptionValue("poll") != null) {
+			try {
+				poll_p = Long.parseLong(cmd.getOptionValue("poll"));
+			} catch(NumberFormatException e) {
+				throw new RuntimeException("Poll must be a number.");
+			}
+		}
+
+		// One long-lived shipper per log, ships every writer's appends
+		Shipper shipper;
+		try {
+			shipper = new Shipper(fname_p, "127.0.0.1", port_p);
+			if(poll_p > 0) {
+				// Writers in other processes wait up to one poll for their ack
+				shipper.setPollMillis(poll_p);
+			}
+			shipper.start();
+			System.out.println("Shipping to port " + port_p);
+		} catch(RuntimeException e) {
+			throw new RuntimeException("Initialization Error [["+e+"]]");
+		}
+		// Ship until killed, or until the follower goes away
+		shipper.join();
+	}
+
+}
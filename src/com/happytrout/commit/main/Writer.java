@@ -2,8 +2,14 @@ package com.happytrout.commit.main;
 
 import java.io.*;
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
 import java.security.SecureRandom;
 import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Semaphore;
 
 /**
@@ -38,6 +44,34 @@ public class Writer {
 	// Semaphore for concurrency control
 	private final Semaphore available = new Semaphore(1, true);
 	
+	// Shared (multi-process) append mode
+	boolean shared = false;
+	FileChannel channel = null;
+	Object appendMonitor = null;
+	
+	// Sentinel region past any real end of file, locked while a
+	// large record is being appended
+	private static final long APPEND_LOCK_POS = Long.MAX_VALUE - 1;
+	
+	// Records up to this many bytes are appended with one write and
+	// no lock, like PIPE_BUF for pipes.  Larger ones take the lock.
+	public static final int ATOMIC_APPEND_LIMIT = 4096;
+	
+	// Shared by all Writers, SecureRandom is thread safe
+	private static final SecureRandom random = new SecureRandom();
+	
+	// File locks belong to the whole JVM, so Writers on the same
+	// file must also agree on a monitor inside this JVM
+	private static final ConcurrentHashMap<String, Object> appendMonitors =
+			new ConcurrentHashMap<String, Object>();
+	
+	// Optional follower that must acknowledge each commit, through
+	// a Shipper in this process or by asking the follower directly
+	Shipper replica = null;
+	String replicaHost = null;
+	int replicaPort = 0;
+	long replicaTimeout = 5000;
+	
 /**
  * Constructor, which takes a file name.  This file name is
  * added to the current path to create or open the log file
@@ -102,6 +136,69 @@ public class Writer {
 		return(this.cid);
 	}
 	
+/**
+* Setters and Getters for shared append mode.
+* 
+* In shared mode every record is appended through an O_APPEND
+* channel with a single write.  The kernel moves to the end of
+* the file and writes in one step, so commits from separate
+* processes, or separate Writers on the same file, land as whole
+* lines without any lock.  Records over ATOMIC_APPEND_LIMIT bytes
+* could be split by a short write, so they also hold an exclusive
+* lock on a sentinel region of the file, only for the write.
+* 
+* @param  shared  true to enable multi-process safe appends
+* @return      void
+*/
+	public void setShared(final boolean shared) {
+		this.shared = shared;
+	}
+	
+	public boolean isShared() {
+		return(this.shared);
+	}
+	
+/**
+* Setters and Getters for the replica.
+* 
+* When a started Shipper is set, commit() does not return until
+* the follower has acknowledged the log up to the end of the new
+* record, or the timeout passes, in which case it throws.
+* 
+* A log has one Shipper, so Writers in other processes give the
+* follower's host and port instead, and ask the follower itself.
+* 
+* @param  replica  started Shipper for this log, or null
+* @param  millis   longest time to wait for each acknowledgement
+* @return      void
+*/
+	public void setReplica(final Shipper replica, final long millis) {
+		if(millis < 1) {
+			throw new RuntimeException("Replica timeout must be positive.");
+		}
+		this.replica = replica;
+		this.replicaHost = null;
+		this.replicaPort = 0;
+		this.replicaTimeout = millis;
+	}
+	
+	public void setReplica(final String host, final int port, final long millis) {
+		if(millis < 1) {
+			throw new RuntimeException("Replica timeout must be positive.");
+		}
+		if(host == null || port < 1) {
+			throw new RuntimeException("Replica host and port required.");
+		}
+		this.replica = null;
+		this.replicaHost = host;
+		this.replicaPort = port;
+		this.replicaTimeout = millis;
+	}
+	
+	public Shipper getReplica() {
+		return(this.replica);
+	}
+	
 /**
 * Writes a message to the commit log.
 * 
@@ -120,23 +217,98 @@ public class Writer {
 		if(cid == null || cid.length() < 1) {
 			throw new RuntimeException("Must set CID before logging entries.");
 		}
+		long end = 0;
+		if(shared) {
+			end = commitShared(msg);
+		} else {
+			try {
+				synchronized(this) {
+					// Formatting does not require semaphore
+					String s = formatLine(msg) + "\r\n";
+					// Be sure our writes are atomic
+					available.acquire();
+					// Open our file writer
+					fileWriter = new FileWriter(fh, true);
+					fileWriter.append(s);
+					fileWriter.flush();
+					end = fh.length();
+					available.release();
+				}
+			} catch(IOException | InterruptedException e) {
+				throw new RuntimeException("IO Error writing to log file ["+fh.getPath()+"] "+e);
+			}
+		}
+		// Wait outside the lock so other commits can be shipped too
+		boolean acked = true;
+		if(replica != null) {
+			acked = replica.awaitAck(end, replicaTimeout);
+		} else if(replicaHost != null) {
+			acked = Shipper.awaitFollower(replicaHost, replicaPort, end, replicaTimeout);
+		}
+		if(!acked) {
+			throw new RuntimeException("Timed out waiting for replica to acknowledge log file ["+fh.getPath()+"] at offset ["+end+"]");
+		}
+	}
+
+/**
+* Writes a message to the commit log in shared append mode.
+* 
+* The message is escaped and encoded first.  Only the stamp is
+* taken just before the write, or under the lock for a large
+* record, so a shared log stays in time order to within a few
+* milliseconds.  See setShared().
+* 
+* @param  msg  a string of arbitrary length
+* @return      log offset just past the new record
+*/
+	final long commitShared(final String msg) {
+		final String delimiter = ":";
+		
 		try {
-			//TODO Create test to simulate multiple writes
 			synchronized(this) {
-				// Formatting does not require semaphore
-				String s = formatLine(msg) + "\r\n";
-				// Be sure our writes are atomic
-				available.acquire();
-				// Open our file writer
-				fileWriter = new FileWriter(fh, true);
-				fileWriter.append(s);
-				fileWriter.flush();
-				available.release();
+				if(channel == null) {
+					channel = FileChannel.open(fh.toPath(), StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+					appendMonitor = appendMonitors.computeIfAbsent(fh.getCanonicalPath(), k -> new Object());
+				}
+				ByteBuffer body = ByteBuffer.wrap((delimiter + formatBody(msg) + "\r\n").getBytes(StandardCharsets.UTF_8));
+				String rand = formatRand();
+				// Bound the head: CID in UTF-8, stamp, rand and delimiters
+				boolean large = body.remaining() + 3 * cid.length() + 32 > ATOMIC_APPEND_LIMIT;
+				if(!large) {
+					return(append(body, rand));
+				}
+				synchronized(appendMonitor) {
+					FileLock lock = channel.lock(APPEND_LOCK_POS, 1, false);
+					try {
+						return(append(body, rand));
+					} finally {
+						lock.release();
+					}
+				}
 			}
-		} catch(IOException | InterruptedException e) {
+		} catch(IOException e) {
 			throw new RuntimeException("IO Error writing to log file ["+fh.getPath()+"] "+e);
 		}
 	}
+	
+/**
+* Stamps a record and appends it with one gathering write.
+* 
+* @param  body  encoded delimiter, message and line end
+* @param  rand  random part of the Unique-ID
+* @return      log offset just past the new record
+*/
+	private long append(final ByteBuffer body, final String rand) throws IOException {
+		final String delimiter = ":";
+		
+		String stamp = Objects.toString(System.currentTimeMillis(), null);
+		ByteBuffer head = ByteBuffer.wrap((this.cid + delimiter + stamp + "-" + rand).getBytes(StandardCharsets.UTF_8));
+		ByteBuffer[] bufs = new ByteBuffer[] { head, body };
+		while(body.hasRemaining()) {
+			channel.write(bufs);
+		}
+		return(channel.position());
+	}
 
 /**
 * Formats a single line for writing into a log file.
@@ -157,15 +329,34 @@ public class Writer {
 			throw new RuntimeException("CID cannot be null.");
 		}
 		String stamp = Objects.toString(System.currentTimeMillis(), null);
-		SecureRandom random = new SecureRandom();
-		String rand = new BigInteger(130, random).toString(32).substring(0, 4);
-		String msg_fmt_0 = msg.replaceAll("\r", "<cr>");
-		String msg_fmt_1 = msg_fmt_0.replaceAll("\n", "<lf>");
-		String ret = this.cid + delimiter + stamp + "-" + rand + delimiter + msg_fmt_1;
+		String ret = this.cid + delimiter + stamp + "-" + formatRand() + delimiter + formatBody(msg);
 		
 		return ret;
 	}
 	
+/**
+* Escapes line ends in a message, so it stays on one line.
+* 
+* @param  msg  a string of arbitrary length
+* @return      message with CR and LF replaced
+*/
+	final String formatBody(final String msg) {
+		if(msg == null || msg.length() < 1) {
+			throw new RuntimeException("Message cannot be null.");
+		}
+		String msg_fmt_0 = msg.replace("\r", "<cr>");
+		return(msg_fmt_0.replace("\n", "<lf>"));
+	}
+	
+/**
+* Makes the random part of a Unique-ID.
+* 
+* @return      four base-32 characters
+*/
+	static String formatRand() {
+		return(new BigInteger(130, random).toString(32).substring(0, 4));
+	}
+	
 /**
  * Tidies up, for purists, and on the side of
  * always closing file handles, etc. This is not strictly
@@ -179,6 +370,9 @@ public class Writer {
         		if(fileWriter != null) {
         			fileWriter.close();
         		}
+        		if(channel != null) {
+        			channel.close();
+        		}
         		if(available != null) {
         			available.release();
         		}
@@ -34,6 +34,23 @@ public class WriterCmd {
                 .withDescription(  "commit message for logfile" )
                 .create( "msg" );
 		opt.addOption(msg);
+		// add shared option
+		org.apache.commons.cli.Option shared   = OptionBuilder
+                .withDescription(  "append safely alongside other processes" )
+                .create( "shared" );
+		opt.addOption(shared);
+		// add repeat option
+		org.apache.commons.cli.Option repeat   = OptionBuilder.withArgName( "repeat" )
+                .hasArg()
+                .withDescription(  "number of times to commit the message" )
+                .create( "repeat" );
+		opt.addOption(repeat);
+		// add replica option
+		org.apache.commons.cli.Option replica   = OptionBuilder.withArgName( "port" )
+                .hasArg()
+                .withDescription(  "wait for the follower on this local port to acknowledge each commit" )
+                .create( "replica" );
+		opt.addOption(replica);
 
 		CommandLineParser parser = new GnuParser();
 		CommandLine cmd;
@@ -58,11 +75,36 @@ public class WriterCmd {
 			throw new RuntimeException("Msg required.");
 		}
 		
+		int repeat_p = 1;
+		if(cmd.getOptionValue("repeat") != null) {
+			try {
+				repeat_p = Integer.parseInt(cmd.getOptionValue("repeat"));
+			} catch(NumberFormatException e) {
+				throw new RuntimeException("Repeat must be a number.");
+			}
+		}
+		
+		int replica_p = 0;
+		if(cmd.getOptionValue("replica") != null) {
+			try {
+				replica_p = Integer.parseInt(cmd.getOptionValue("replica"));
+			} catch(NumberFormatException e) {
+				throw new RuntimeException("Replica port must be a number.");
+			}
+		}
+		
 		// Make sure our log file exists
 		try {
 			Writer writer = new Writer(fname_p, cid_p);
+			writer.setShared(cmd.hasOption("shared"));
+			if(replica_p > 0) {
+				// The log's shipper runs elsewhere, e.g. ShipperCmd
+				writer.setReplica("127.0.0.1", replica_p, 5000);
+			}
 			System.out.println("Committed");
-			writer.commit(msg_p);
+			for(int i = 0; i < repeat_p; i++) {
+				writer.commit(msg_p);
+			}
 		} catch(RuntimeException e) {
 			throw new RuntimeException("Initialization Error [["+e+"]]");
 		}
@@ -0,0 +1,188 @@
+package com.happytrout.commit.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintStream;
+
+import org.hamcrest.CoreMatchers;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.happytrout.commit.main.MergedReader;
+import com.happytrout.commit.main.Reader;
+
+public class MergedReaderTest {
+
+	@Test(expected = RuntimeException.class)
+	public final void whenNoFilesArePassedInThenExceptionIsThrown() {
+		MergedReader r = new MergedReader(new String[0]);
+	}
+
+	@Test(expected = RuntimeException.class)
+	public final void whenOneFileDoesNotExistThenExceptionIsThrown() throws IOException {
+		prep("deleteme0", "A:100-aaaa:First\r\n");
+		MergedReader r = new MergedReader(new String[] { "deleteme0", "deleteme-missing" });
+	}
+
+	@Test
+	public final void whenLogsAreMergedEntriesComeOutInTimeOrder() throws IOException {
+		prep("deleteme0", "A:100-aaaa:one\r\n"
+				+ "B:300-bbbb:three\r\n"
+				+ "A:500-cccc:five\r\n");
+		prep("deleteme1", "B:200-dddd:two\r\n"
+				+ "A:400-eeee:four\r\n");
+		prep("deleteme2", "");
+
+		MergedReader r = new MergedReader(new String[] { "deleteme0", "deleteme1", "deleteme2" });
+		r.fetch();
+		String nl = System.lineSeparator();
+		assertEquals("Merged entries are not in time order",
+				"A:100-aaaa:one" + nl + "B:200-dddd:two" + nl + "B:300-bbbb:three" + nl
+				+ "A:400-eeee:four" + nl + "A:500-cccc:five" + nl,
+				outContent.toString());
+	}
+
+	@Test
+	public final void whenStampsTieUniqueIdBreaksTheTie() throws IOException {
+		prep("deleteme0", "A:100-zzzz:later\r\n");
+		prep("deleteme1", "A:100-aaaa:sooner\r\n");
+
+		MergedReader r = new MergedReader(new String[] { "deleteme0", "deleteme1" });
+		r.fetch();
+		assertThat("Unique-ID did not break the timestamp tie",
+				outContent.toString(), CoreMatchers.startsWith("A:100-aaaa:sooner"));
+	}
+
+	@Test
+	public final void whenCIDIsSetOnlyMatchingEntriesAreMerged() throws IOException {
+		prep("deleteme0", "A:100-aaaa:one\r\n"
+				+ "B:300-bbbb:three\r\n");
+		prep("deleteme1", "B:200-dddd:two\r\n"
+				+ "A:400-eeee:four\r\n");
+
+		MergedReader r = new MergedReader(new String[] { "deleteme0", "deleteme1" }, "A");
+		r.setBufferSize(16);
+		r.fetch();
+		String nl = System.lineSeparator();
+		assertEquals("CID filter was not applied to merge",
+				"A:100-aaaa:one" + nl + "A:400-eeee:four" + nl,
+				outContent.toString());
+	}
+
+	@Test
+	public final void whenLogsAreCompactedNewLogIsReadable() throws IOException {
+		prep("deleteme0", "A:100-aaaa:one\r\n"
+				+ "A:300-bbbb:three\r\n");
+		prep("deleteme1", "A:200-dddd:two\r\n");
+		new File("deleteme-merged").delete();
+
+		MergedReader m = new MergedReader(new String[] { "deleteme0", "deleteme1" });
+		m.compact("deleteme-merged");
+		assertEquals("Compacted log has the wrong length",
+				3 * 16 + 2, new File("deleteme-merged").length());
+
+		Reader r = new Reader("deleteme-merged", "A");
+		r.fetch();
+		assertThat("Compacted log is out of order",
+				outContent.toString(), CoreMatchers.containsString("two" + System.lineSeparator() + "A:300"));
+	}
+
+	@Test(expected = RuntimeException.class)
+	public final void whenCompactTargetExistsThenExceptionIsThrown() throws IOException {
+		prep("deleteme0", "A:100-aaaa:one\r\n");
+		MergedReader m = new MergedReader(new String[] { "deleteme0" });
+		m.compact("deleteme0");
+	}
+
+	@Test
+	public final void whenAnInputIsSlightlyOutOfOrderTheWindowPutsItBack() throws IOException {
+		// As written by several processes sharing one log
+		prep("deleteme0", "A:100-aaaa:one\r\n"
+				+ "B:300-bbbb:three\r\n"
+				+ "A:200-cccc:two\r\n"
+				+ "A:500-eeee:five\r\n");
+		prep("deleteme1", "B:400-dddd:four\r\n");
+
+		MergedReader r = new MergedReader(new String[] { "deleteme0", "deleteme1" });
+		r.fetch();
+		String nl = System.lineSeparator();
+		assertEquals("Window did not put the input back in order",
+				"A:100-aaaa:one" + nl + "A:200-cccc:two" + nl + "B:300-bbbb:three" + nl
+				+ "B:400-dddd:four" + nl + "A:500-eeee:five" + nl,
+				outContent.toString());
+		assertEquals("In-window disorder was counted as late", 0, r.getLateLines());
+	}
+
+	@Test
+	public final void whenDisorderExceedsTheWindowLinesAreMergedLate() throws IOException {
+		prep("deleteme0", "A:300-aaaa:three\r\n"
+				+ "A:100-bbbb:one\r\n"
+				+ "A:200-cccc:two\r\n");
+
+		MergedReader r = new MergedReader(new String[] { "deleteme0" });
+		r.setWindow(1);
+		r.fetch();
+		String nl = System.lineSeparator();
+		assertEquals("Late lines were not merged",
+				"A:300-aaaa:three" + nl + "A:100-bbbb:one" + nl + "A:200-cccc:two" + nl,
+				outContent.toString());
+		assertEquals("Late lines were not counted", 2, r.getLateLines());
+	}
+
+	@Test
+	public final void whenALogIsMergedWithItselfEveryLineComesOutTwice() throws IOException {
+		prep("deleteme0", "A:200-aaaa:two\r\n"
+				+ "A:100-bbbb:one\r\n");
+
+		MergedReader r = new MergedReader(new String[] { "deleteme0", "deleteme0" }, "A");
+		r.fetch();
+		String nl = System.lineSeparator();
+		assertEquals("Self merge lost or misordered lines",
+				"A:100-bbbb:one" + nl + "A:100-bbbb:one" + nl + "A:200-aaaa:two" + nl + "A:200-aaaa:two" + nl,
+				outContent.toString());
+	}
+
+	@Test
+	public final void whenLinesAreMalformedTheyAreSkippedAndCounted() throws IOException {
+		prep("deleteme0", "A:100-aaaa:one\r\n"
+				+ "no delimiters here\r\n"
+				+ "A:notastamp:bad stamp\r\n"
+				+ "A:200-bbbb:two\r\n");
+
+		MergedReader r = new MergedReader(new String[] { "deleteme0" });
+		r.fetch();
+		String nl = System.lineSeparator();
+		assertEquals("Good lines were not merged",
+				"A:100-aaaa:one" + nl + "A:200-bbbb:two" + nl, outContent.toString());
+		assertEquals("Malformed lines were not counted", 2, r.getSkippedLines());
+	}
+
+	private void prep(final String fname, final String source) throws IOException {
+		FileWriter f1 = new FileWriter(fname);
+		f1.write(source);
+		f1.close();
+	}
+
+	private final ByteArrayOutputStream outContent = new ByteArrayOutputStream();
+	private final PrintStream originalOut = System.out;
+
+	@Before
+	public void setUpStreams() {
+	    System.setOut(new PrintStream(outContent));
+	}
+
+	@After
+	public void cleanUpStreams() {
+	    System.setOut(originalOut);
+	    new File("deleteme0").delete();
+	    new File("deleteme1").delete();
+	    new File("deleteme2").delete();
+	    new File("deleteme-merged").delete();
+	}
+}
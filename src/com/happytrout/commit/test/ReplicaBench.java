@@ -0,0 +1,67 @@
+package com.happytrout.commit.test;
+
+import java.io.File;
+import java.io.IOException;
+
+import com.happytrout.commit.main.Follower;
+import com.happytrout.commit.main.Shipper;
+import com.happytrout.commit.main.Writer;
+
+/**
+ * Times commits that wait for a follower to acknowledge them.
+ * Not run as part of the tests, since timings vary from box to
+ * box.  Modes are:
+ *   none      no replica, for comparison
+ *   shipper   waits on a Shipper in this process
+ *   follower  asks the follower, as a writer in another process
+ *             would, so also waits on the shipper's poll
+ *
+ * Usage: ReplicaBench [commits] [poll millis] [modes,...]
+ */
+public class ReplicaBench {
+
+	public static void main(String[] args) throws IOException {
+		int commits = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+		long poll = args.length > 1 ? Long.parseLong(args[1]) : 5;
+		String modes = args.length > 2 ? args[2] : "none,shipper,follower";
+
+		for(String mode : modes.split(",")) {
+			long micros = run(mode, commits, poll);
+			System.out.println(mode+": "+commits+" commits, "+micros+" us each");
+		}
+	}
+
+	static long run(final String mode, final int commits, final long poll) throws IOException {
+		File leader = new File("deleteme-bench-leader");
+		File replica = new File("deleteme-bench-replica");
+		leader.delete();
+		replica.delete();
+		Follower follower = new Follower(replica.getPath(), 0);
+		follower.start();
+		Writer w = new Writer(leader.getPath(), "bench");
+		Shipper shipper = new Shipper(leader.getPath(), "127.0.0.1", follower.getPort());
+		shipper.setPollMillis(poll);
+		shipper.start();
+		try {
+			if(mode.equals("shipper")) {
+				w.setReplica(shipper, 5000);
+			} else if(mode.equals("follower")) {
+				w.setReplica("127.0.0.1", follower.getPort(), 5000);
+			}
+			// Warm up before timing
+			for(int i = 0; i < 50; i++) {
+				w.commit("warm up");
+			}
+			long start = System.nanoTime();
+			for(int i = 0; i < commits; i++) {
+				w.commit("timed acknowledged message");
+			}
+			return((System.nanoTime() - start) / commits / 1000);
+		} finally {
+			shipper.close();
+			follower.close();
+			leader.delete();
+			replica.delete();
+		}
+	}
+}
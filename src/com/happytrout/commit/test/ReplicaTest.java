@@ -0,0 +1,271 @@
+package com.happytrout.commit.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.hamcrest.CoreMatchers;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.happytrout.commit.main.Follower;
+import com.happytrout.commit.main.Shipper;
+import com.happytrout.commit.main.ShipperCmd;
+import com.happytrout.commit.main.Writer;
+import com.happytrout.commit.main.WriterCmd;
+
+public class ReplicaTest {
+
+	// Leader and follower logs live in separate directories
+	private final File leader = new File("deleteme-leader" + File.separator + "log");
+	private final File replica = new File("deleteme-follower" + File.separator + "log");
+
+	private Follower follower = null;
+	private Shipper shipper = null;
+
+	@Test(expected = RuntimeException.class)
+	public final void whenLeaderLogDoesNotExistThenExceptionIsThrown() {
+		leader.delete();
+		Shipper s = new Shipper(leader.getPath(), "127.0.0.1", 1);
+	}
+
+	@Test
+	public final void whenCommitReturnsFollowerHasTheRecord() throws IOException {
+		follower = new Follower(replica.getPath(), 0);
+		follower.start();
+		Writer w = new Writer(leader.getPath(), "a");
+		shipper = new Shipper(leader.getPath(), "127.0.0.1", follower.getPort());
+		shipper.start();
+		w.setReplica(shipper, 5000);
+
+		w.commit("first acknowledged message");
+		assertEquals("Follower did not acknowledge the commit", leader.length(), follower.getOffset());
+		w.commit("second acknowledged message");
+		assertEquals("Shipper did not record the acknowledgement", leader.length(), shipper.getAcked());
+		assertArrayEquals("Replica log differs from leader log",
+				Files.readAllBytes(leader.toPath()), Files.readAllBytes(replica.toPath()));
+	}
+
+	@Test
+	public final void whenFollowerHasAPrefixShipperResumesFromIt() throws IOException {
+		prep(leader, "A:100-aaaa:one\r\nA:200-bbbb:two\r\n");
+		prep(replica, "A:100-aaaa:one\r\n");
+		follower = new Follower(replica.getPath(), 0);
+		follower.start();
+		shipper = new Shipper(leader.getPath(), "127.0.0.1", follower.getPort());
+		shipper.start();
+
+		assertTrue("Follower did not catch up", shipper.awaitAck(leader.length(), 5000));
+		assertArrayEquals("Replica log differs from leader log",
+				Files.readAllBytes(leader.toPath()), Files.readAllBytes(replica.toPath()));
+	}
+
+	@Test(expected = RuntimeException.class)
+	public final void whenFollowerIsAheadShipperRefusesToStart() throws IOException {
+		prep(leader, "A:100-aaaa:one\r\n");
+		prep(replica, "A:100-aaaa:one\r\nA:200-bbbb:two\r\n");
+		follower = new Follower(replica.getPath(), 0);
+		follower.start();
+		shipper = new Shipper(leader.getPath(), "127.0.0.1", follower.getPort());
+		shipper.start();
+	}
+
+	@Test
+	public final void whenWriterProcessesShareOneShipperReplicaMatches() throws IOException, InterruptedException {
+		follower = new Follower(replica.getPath(), 0);
+		follower.start();
+		leader.createNewFile();
+
+		String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+		String cp = System.getProperty("java.class.path");
+		ProcessBuilder sb = new ProcessBuilder(java, "-cp", cp, ShipperCmd.class.getName(),
+				"-fname", leader.getPath(), "-port", Integer.toString(follower.getPort()), "-poll", "5");
+		sb.redirectErrorStream(true);
+		sb.redirectOutput(new File("deleteme-leader" + File.separator + "out"));
+		Process shipperProcess = sb.start();
+		try {
+			List<Process> writers = new ArrayList<Process>();
+			for(int i = 0; i < 4; i++) {
+				ProcessBuilder pb = new ProcessBuilder(java, "-cp", cp, WriterCmd.class.getName(),
+						"-fname", leader.getPath(), "-cid", "w" + i,
+						"-msg", "shipped from another process", "-repeat", "20", "-shared",
+						"-replica", Integer.toString(follower.getPort()));
+				pb.redirectErrorStream(true);
+				pb.redirectOutput(new File("deleteme-leader" + File.separator + "out" + i));
+				writers.add(pb.start());
+			}
+			for(int i = 0; i < writers.size(); i++) {
+				assertEquals("Writer process failed", 0, writers.get(i).waitFor());
+				new File("deleteme-leader" + File.separator + "out" + i).delete();
+			}
+
+			// Each writer waited on the follower, so nothing is still in flight
+			assertEquals("Replica is missing commits", 4 * 20 * (29 + 23), replica.length());
+			assertArrayEquals("Replica log differs from leader log",
+					Files.readAllBytes(leader.toPath()), Files.readAllBytes(replica.toPath()));
+		} finally {
+			shipperProcess.destroy();
+			shipperProcess.waitFor();
+		}
+	}
+
+	@Test
+	public final void whenAskedDirectlyFollowerReportsItsAck() throws IOException {
+		follower = new Follower(replica.getPath(), 0);
+		follower.start();
+		Writer w = new Writer(leader.getPath(), "a");
+		shipper = new Shipper(leader.getPath(), "127.0.0.1", follower.getPort());
+		shipper.start();
+
+		// As a writer without the Shipper, e.g. in another process
+		w.commit("acknowledged without the shipper");
+		assertTrue("Follower did not report the acknowledgement",
+				Shipper.awaitFollower("127.0.0.1", follower.getPort(), leader.length(), 5000));
+		assertFalse("Follower reported an offset it does not have",
+				Shipper.awaitFollower("127.0.0.1", follower.getPort(), leader.length() + 1, 100));
+	}
+
+	@Test
+	public final void whenShipperIsClosedWaitingThrows() throws IOException {
+		leader.createNewFile();
+		follower = new Follower(replica.getPath(), 0);
+		follower.start();
+		shipper = new Shipper(leader.getPath(), "127.0.0.1", follower.getPort());
+		shipper.start();
+		shipper.close();
+		try {
+			shipper.awaitAck(1, 5000);
+			fail("Closed shipper reported a timeout");
+		} catch(RuntimeException e) {
+			assertThat("Closed shipper failed for the wrong reason",
+					e.getMessage(), CoreMatchers.containsString("closed"));
+		}
+		// Nothing failed, so join returns at once
+		shipper.join();
+	}
+
+	@Test(timeout = 10000)
+	public final void whenFollowerGoesAwayJoinReportsTheFailure() throws IOException {
+		leader.createNewFile();
+		follower = new Follower(replica.getPath(), 0);
+		follower.start();
+		shipper = new Shipper(leader.getPath(), "127.0.0.1", follower.getPort());
+		shipper.setPollMillis(10);
+		shipper.start();
+		follower.close();
+		follower = null;
+
+		new Writer(leader.getPath(), "a").commit("nobody to ship this to");
+		try {
+			shipper.join();
+			fail("Shipper did not notice the follower went away");
+		} catch(RuntimeException e) {
+			assertThat("Shipper failed for the wrong reason",
+					e.getMessage(), CoreMatchers.containsString("failed"));
+		}
+	}
+
+	@Test
+	public final void whenFollowerAlreadyHasAShipperSecondOneFailsFast() throws IOException {
+		leader.createNewFile();
+		follower = new Follower(replica.getPath(), 0);
+		follower.start();
+		shipper = new Shipper(leader.getPath(), "127.0.0.1", follower.getPort());
+		shipper.start();
+
+		Shipper second = new Shipper(leader.getPath(), "127.0.0.1", follower.getPort());
+		second.setTimeoutMillis(2000);
+		long start = System.currentTimeMillis();
+		try {
+			second.start();
+			fail("Second shipper was accepted");
+		} catch(RuntimeException e) {
+			assertThat("Second shipper failed for the wrong reason",
+					e.getMessage(), CoreMatchers.containsString("already has a shipper"));
+		}
+		assertTrue("Second shipper did not fail fast", System.currentTimeMillis() - start < 2000);
+	}
+
+	@Test
+	public final void whenFollowerHasDifferentContentShipperRefusesToStart() throws IOException {
+		prep(leader, "A:100-aaaa:one\r\nA:200-bbbb:two\r\n");
+		prep(replica, "B:999-zzzz:else\r\n");
+		follower = new Follower(replica.getPath(), 0);
+		follower.start();
+		shipper = new Shipper(leader.getPath(), "127.0.0.1", follower.getPort());
+		try {
+			shipper.start();
+			fail("Shipper appended to a replica of a different log");
+		} catch(RuntimeException e) {
+			assertThat("Shipper failed for the wrong reason",
+					e.getMessage(), CoreMatchers.containsString("differs"));
+		}
+		assertEquals("Replica was changed", 17, replica.length());
+	}
+
+	@Test
+	public final void whenRangeLengthIsBadFollowerDropsTheShipper() throws IOException {
+		follower = new Follower(replica.getPath(), 0);
+		follower.start();
+		SocketChannel sock = SocketChannel.open(new InetSocketAddress("127.0.0.1", follower.getPort()));
+		try {
+			ByteBuffer hello = ByteBuffer.allocate(8);
+			hello.putLong(1).flip();
+			sock.write(hello);
+			ByteBuffer greeting = ByteBuffer.allocate(16);
+			while(greeting.hasRemaining() && sock.read(greeting) >= 0) {
+				// Offset and checksum
+			}
+			ByteBuffer bad = ByteBuffer.allocate(8);
+			bad.putLong(-5).flip();
+			sock.write(bad);
+			assertEquals("Follower kept a shipper that sent a bad length", -1, sock.read(ByteBuffer.allocate(8)));
+		} finally {
+			sock.close();
+		}
+		assertEquals("Replica was changed", 0, follower.getOffset());
+	}
+
+	private void prep(final File fh, final String source) throws IOException {
+		FileWriter f1 = new FileWriter(fh);
+		f1.write(source);
+		f1.close();
+	}
+
+	@Before
+	public void setUpDirectories() {
+		leader.getParentFile().mkdirs();
+		replica.getParentFile().mkdirs();
+		leader.delete();
+		replica.delete();
+	}
+
+	@After
+	public void cleanUpDirectories() {
+		if(shipper != null) {
+			shipper.close();
+		}
+		if(follower != null) {
+			follower.close();
+		}
+		leader.delete();
+		replica.delete();
+		new File("deleteme-leader" + File.separator + "out").delete();
+		leader.getParentFile().delete();
+		replica.getParentFile().delete();
+	}
+}
@@ -0,0 +1,216 @@
+package com.happytrout.commit.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+
+import org.hamcrest.CoreMatchers;
+import org.junit.After;
+import org.junit.Test;
+
+import com.happytrout.commit.main.SharedScanReader;
+import com.happytrout.commit.main.SharedScanReader.Subscription;
+import com.happytrout.commit.main.Writer;
+
+public class SharedScanReaderTest {
+
+	@Test(expected = RuntimeException.class)
+	public final void whenFileDoesNotExistThenExceptionIsThrown() {
+		SharedScanReader r = new SharedScanReader("deleteme-missing");
+	}
+
+	@Test(expected = RuntimeException.class)
+	public final void whenNullStringIsPassedForCIDThenExceptionIsThrown() throws IOException {
+		prep("deleteme-scan", "");
+		SharedScanReader r = new SharedScanReader("deleteme-scan");
+		r.subscribe("", 4);
+	}
+
+	@Test
+	public final void whenOneScanServesManyCIDsEachGetsOnlyItsLines() throws IOException {
+		prep("deleteme-scan", "A:1-aaaa:first a\r\n"
+				+ "B:2-bbbb:first b\r\n"
+				+ "C:3-cccc:nobody wants this\r\n"
+				+ "A:4-dddd:second a\r\n");
+		SharedScanReader r = new SharedScanReader("deleteme-scan");
+		Subscription a0 = r.subscribe("A", 8);
+		Subscription a1 = r.subscribe("A", 8);
+		Subscription b = r.subscribe("B", 8);
+		r.scan();
+
+		assertEquals("First A subscriber missed a line", "A:1-aaaa:first a", a0.take());
+		assertEquals("First A subscriber missed a line", "A:4-dddd:second a", a0.take());
+		assertNull("First A subscriber did not see end of scan", a0.take());
+		assertEquals("Second A subscriber missed a line", "A:1-aaaa:first a", a1.take());
+		assertEquals("Second A subscriber missed a line", "A:4-dddd:second a", a1.take());
+		assertNull("Second A subscriber did not see end of scan", a1.take());
+		assertEquals("B subscriber missed its line", "B:2-bbbb:first b", b.take());
+		assertNull("B subscriber did not see end of scan", b.take());
+	}
+
+	@Test
+	public final void whenQueueIsFullScanWaitsForTheSubscriber() throws IOException, InterruptedException {
+		StringBuilder sb = new StringBuilder();
+		for(int i = 0; i < 100; i++) {
+			sb.append("A:" + (1000 + i) + "-aaaa:entry " + i + "\r\n");
+		}
+		prep("deleteme-scan", sb.toString());
+		final SharedScanReader r = new SharedScanReader("deleteme-scan");
+		r.setBufferSize(7);
+		Subscription a = r.subscribe("A", 2);
+		Thread t = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				r.scan();
+			}
+		});
+		t.start();
+
+		for(int i = 0; i < 100; i++) {
+			assertThat("Lines were lost or reordered under backpressure",
+					a.take(), CoreMatchers.endsWith(":entry " + i));
+		}
+		assertNull("Subscriber did not see end of scan", a.take());
+		t.join();
+	}
+
+	@Test
+	public final void whenSubscriberCancelsScanCarriesOn() throws IOException, InterruptedException {
+		prep("deleteme-scan", "A:1-aaaa:one\r\nA:2-bbbb:two\r\nA:3-cccc:three\r\nB:4-dddd:four\r\n");
+		final SharedScanReader r = new SharedScanReader("deleteme-scan");
+		Subscription a = r.subscribe("A", 1);
+		Subscription b = r.subscribe("B", 1);
+		Thread t = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				r.scan();
+			}
+		});
+		t.start();
+
+		assertEquals("A subscriber missed its first line", "A:1-aaaa:one", a.take());
+		a.cancel();
+		assertEquals("Cancelled subscriber held up the scan", "B:4-dddd:four", b.take());
+		assertNull("Cancelled subscriber still receives lines", a.take());
+		t.join();
+	}
+
+	@Test
+	public final void whenFollowingNewCommitsReachSubscribers() throws IOException, InterruptedException {
+		prep("deleteme-scan", "A:1-aaaa:already there\r\n");
+		final SharedScanReader r = new SharedScanReader("deleteme-scan");
+		r.setPollMillis(10);
+		Subscription a = r.subscribe("A", 8);
+		Thread t = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				r.follow();
+			}
+		});
+		t.start();
+
+		assertEquals("Follower missed existing line", "A:1-aaaa:already there", a.poll(5000));
+		Writer w = new Writer("deleteme-scan", "A");
+		w.commit("appended later");
+		assertThat("Follower missed appended line", a.poll(5000), CoreMatchers.endsWith(":appended later"));
+		r.close();
+		t.join(5000);
+		assertNull("Subscriber did not see end of follow", a.poll(5000));
+		assertTrue("Subscriber is not done after close", a.isDone());
+	}
+
+	@Test(expected = RuntimeException.class)
+	public final void whenScanHasFinishedSubscribingThrows() throws IOException {
+		prep("deleteme-scan", "A:1-aaaa:one\r\n");
+		SharedScanReader r = new SharedScanReader("deleteme-scan");
+		r.subscribe("A", 4);
+		r.scan();
+		r.subscribe("A", 4);
+	}
+
+	@Test
+	public final void whenFollowIsRunningLateSubscriberGetsNewLines() throws IOException, InterruptedException {
+		prep("deleteme-scan", "A:1-aaaa:one\r\n");
+		final SharedScanReader r = new SharedScanReader("deleteme-scan");
+		r.setPollMillis(10);
+		Subscription a = r.subscribe("A", 4);
+		Thread t = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				r.follow();
+			}
+		});
+		t.start();
+		try {
+			assertEquals("Follower missed existing line", "A:1-aaaa:one", a.poll(5000));
+			Subscription late = r.subscribe("A", 4);
+			Writer w = new Writer("deleteme-scan", "A");
+			w.commit("after the late subscriber");
+			assertThat("Late subscriber missed a new line",
+					late.poll(5000), CoreMatchers.endsWith(":after the late subscriber"));
+			assertThat("Early subscriber missed a new line",
+					a.poll(5000), CoreMatchers.endsWith(":after the late subscriber"));
+		} finally {
+			r.close();
+			t.join(5000);
+		}
+	}
+
+	@Test
+	public final void whenScanEndsMidLineThePartialLineIsDropped() throws IOException {
+		prep("deleteme-scan", "A:1-aaaa:one\r\nA:2-bbbb:still being wri");
+		SharedScanReader r = new SharedScanReader("deleteme-scan");
+		Subscription a = r.subscribe("A", 4);
+		r.scan();
+
+		assertEquals("Scan missed a whole line", "A:1-aaaa:one", a.take());
+		assertNull("Scan dispatched a partial line", a.take());
+	}
+
+	@Test(expected = RuntimeException.class)
+	public final void whenScanRunsTwiceSecondScanThrows() throws IOException {
+		prep("deleteme-scan", "A:1-aaaa:one\r\n");
+		SharedScanReader r = new SharedScanReader("deleteme-scan");
+		r.scan();
+		r.scan();
+	}
+
+	@Test
+	public final void whenSubscriberStallsCloseStillStopsFollow() throws IOException, InterruptedException {
+		prep("deleteme-scan", "A:1-aaaa:one\r\nA:2-bbbb:two\r\nA:3-cccc:three\r\nA:4-dddd:four\r\n");
+		final SharedScanReader r = new SharedScanReader("deleteme-scan");
+		r.setPollMillis(10);
+		Subscription stalled = r.subscribe("A", 2);
+		Thread t = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				r.follow();
+			}
+		});
+		t.start();
+		// Let the scan fill the queue and block on it
+		Thread.sleep(200);
+		r.close();
+		t.join(2000);
+		assertFalse("Follow did not stop with a stalled subscriber", t.isAlive());
+		assertTrue("Stalled subscriber was not marked done", stalled.isDone());
+		assertNull("Stalled subscriber still receives lines", stalled.take());
+	}
+
+	private void prep(final String fname, final String source) throws IOException {
+		FileWriter f1 = new FileWriter(fname);
+		f1.write(source);
+		f1.close();
+	}
+
+	@After
+	public void cleanUpFiles() {
+		new File("deleteme-scan").delete();
+	}
+}
@@ -0,0 +1,119 @@
+package com.happytrout.commit.test;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.happytrout.commit.main.Writer;
+
+/**
+ * Times many processes appending to one log, and counts torn
+ * lines afterwards.  Not run as part of the tests, since timings
+ * and tearing vary from box to box.  Modes are:
+ *   whole     lock the whole file for each append
+ *   shared    Writer's shared mode
+ *   unshared  Writer's default mode, which can tear large records
+ *
+ * Usage: WriterBench [processes] [commits] [message bytes] [modes,...]
+ */
+public class WriterBench {
+
+	public static void main(String[] args) throws IOException, InterruptedException {
+		if(args.length > 0 && args[0].equals("-child")) {
+			child(args[1], args[2], Integer.parseInt(args[3]), Integer.parseInt(args[4]));
+			return;
+		}
+		int procs = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+		int repeat = args.length > 1 ? Integer.parseInt(args[1]) : 20000;
+		int size = args.length > 2 ? Integer.parseInt(args[2]) : 200;
+		String modes = args.length > 3 ? args[3] : "whole,shared,whole,shared";
+
+		for(String mode : modes.split(",")) {
+			long millis = run("deleteme-bench", mode, procs, repeat, size);
+			System.out.println(mode+": "+procs+" processes x "+repeat+" commits of "+size
+					+" bytes in "+millis+" ms, "+(procs * repeat * 1000L / Math.max(millis, 1))+" commits/s, "
+					+torn("deleteme-bench", message(size))+" torn lines");
+		}
+		new File("deleteme-bench").delete();
+	}
+
+	static long run(final String fname, final String mode, final int procs, final int repeat, final int size)
+			throws IOException, InterruptedException {
+		File fh = new File(fname);
+		fh.delete();
+		fh.createNewFile();
+		String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+		long start = System.currentTimeMillis();
+		List<Process> running = new ArrayList<Process>();
+		for(int i = 0; i < procs; i++) {
+			ProcessBuilder pb = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+					WriterBench.class.getName(), "-child", fname, mode,
+					Integer.toString(repeat), Integer.toString(size));
+			pb.inheritIO();
+			running.add(pb.start());
+		}
+		for(Process p : running) {
+			if(p.waitFor() != 0) {
+				throw new RuntimeException("Bench process failed in mode ["+mode+"]");
+			}
+		}
+		return(System.currentTimeMillis() - start);
+	}
+
+	static String message(final int size) {
+		StringBuilder sb = new StringBuilder();
+		while(sb.length() < size) {
+			sb.append("bench!");
+		}
+		return(sb.substring(0, size));
+	}
+
+	static int torn(final String fname, final String msg) throws IOException {
+		int torn = 0;
+		try (BufferedReader br = new BufferedReader(new FileReader(fname))) {
+			String s;
+			while((s = br.readLine()) != null) {
+				boolean whole = s.startsWith("bench:") && s.endsWith(":" + msg)
+						&& s.substring(6, s.length() - msg.length() - 1).matches("[0-9]+-[0-9a-v]{4}");
+				if(!whole) {
+					torn++;
+				}
+			}
+		}
+		return(torn);
+	}
+
+	static void child(final String fname, final String mode, final int repeat, final int size) throws IOException {
+		String msg = message(size);
+		Writer w = new Writer(fname, "bench");
+		if(mode.equals("shared") || mode.equals("unshared")) {
+			w.setShared(mode.equals("shared"));
+			for(int i = 0; i < repeat; i++) {
+				w.commit(msg);
+			}
+			return;
+		}
+		// Whole-file locking, for comparison
+		try (FileChannel ch = FileChannel.open(new File(fname).toPath(), StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+			for(int i = 0; i < repeat; i++) {
+				ByteBuffer buf = ByteBuffer.wrap((w.formatLine(msg) + "\r\n").getBytes(StandardCharsets.UTF_8));
+				FileLock lock = ch.lock();
+				try {
+					while(buf.hasRemaining()) {
+						ch.write(buf);
+					}
+				} finally {
+					lock.release();
+				}
+			}
+		}
+	}
+}
@@ -4,9 +4,15 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
 
+import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 import org.hamcrest.CoreMatchers;
 import org.hamcrest.Matcher;
@@ -14,6 +20,7 @@ import org.hamcrest.CoreMatchers.*;
 import org.junit.Test;
 
 import com.happytrout.commit.main.Writer;
+import com.happytrout.commit.main.WriterCmd;
 
 public class WriterTest {
 	
@@ -98,4 +105,83 @@ public class WriterTest {
 				ret, CoreMatchers.containsString("<cr>"));
 
 	}
+	
+	@Test
+	public final void whenTwoSharedWritersCommitToOneFileLinesStayWhole() throws IOException {
+		FileWriter fileWriter = new FileWriter(new File("deleteme"));
+		fileWriter.close();
+		Writer w0 = new Writer("deleteme", "d");
+		Writer w1 = new Writer("deleteme", "e");
+		w0.setShared(true);
+		w1.setShared(true);
+		w0.commit("from the first writer");
+		w1.commit("from the second writer");
+		w0.commit("from the first writer");
+		File fh1 = new File("deleteme");
+		assertEquals("Shared messages were not written to log file", 2 * (21 + 23) + (22 + 23), fh1.length());
+	}
+	
+	@Test
+	public final void whenManyProcessesCommitSharedEveryLineIsIntact() throws IOException, InterruptedException {
+		// Even processes take the locked path, odd ones the lock-free one
+		String fname = "deleteme";
+		String large = stressMessage(20000);
+		String small = stressMessage(2000);
+		runWriters(fname, large, small);
+		
+		Map<String, Integer> counts = new HashMap<String, Integer>();
+		BufferedReader br = new BufferedReader(new FileReader(fname));
+		String s;
+		while((s = br.readLine()) != null) {
+			assertTrue("Torn line in shared log", isWhole(s, large) || isWhole(s, small));
+			String cid = s.substring(0, s.indexOf(":"));
+			counts.put(cid, counts.containsKey(cid) ? counts.get(cid) + 1 : 1);
+		}
+		br.close();
+		assertEquals("Not every process wrote to the log", PROCS, counts.size());
+		for(int i = 0; i < PROCS; i++) {
+			assertEquals("Lines lost for process p"+i, Integer.valueOf(REPEAT), counts.get("p" + i));
+		}
+	}
+	
+	static final int PROCS = 8;
+	static final int REPEAT = 200;
+	
+	// The large message is well over FileWriter's 8 KB buffer, so
+	// an unsafe append would go to the file in several writes
+	static String stressMessage(final int size) {
+		StringBuilder sb = new StringBuilder();
+		while(sb.length() < size) {
+			sb.append("stress!");
+		}
+		return(sb.substring(0, size));
+	}
+	
+	static boolean isWhole(final String line, final String msg) {
+		int cid = line.indexOf(":");
+		int uid = line.indexOf(":", cid + 1);
+		return(cid > 0 && uid > cid
+				&& line.substring(0, uid + 1).matches("p[0-9]+:[0-9]+-[0-9a-v]{4}:")
+				&& line.length() == uid + 1 + msg.length()
+				&& line.endsWith(msg));
+	}
+	
+	static void runWriters(final String fname, final String even, final String odd) throws IOException, InterruptedException {
+		FileWriter fileWriter = new FileWriter(new File(fname));
+		fileWriter.close();
+		String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+		List<Process> running = new ArrayList<Process>();
+		for(int i = 0; i < PROCS; i++) {
+			ProcessBuilder pb = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+					WriterCmd.class.getName(), "-fname", fname, "-cid", "p" + i, "-msg", i % 2 == 0 ? even : odd,
+					"-repeat", Integer.toString(REPEAT), "-shared");
+			pb.redirectErrorStream(true);
+			pb.redirectOutput(new File(fname + ".out" + i));
+			running.add(pb.start());
+		}
+		for(int i = 0; i < PROCS; i++) {
+			assertEquals("Writer process failed", 0, running.get(i).waitFor());
+			new File(fname + ".out" + i).delete();
+		}
+	}
 }